@@ -0,0 +1,306 @@
+package es.uca.webservices.xquery.parser.structure;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+
+/**
+ * Compares two structural trees (usually two versions of the same module),
+ * descending only into the subtrees whose hashes differ. Unchanged subtrees
+ * built with the same {@link StructuralNodeTable} are the same instance, so
+ * they are skipped in constant time.
+ *
+ * The children of two nodes of the same kind are aligned by their structural
+ * hashes before descending into them, in linearithmic time, so adding or
+ * removing a declaration in a prolog is reported on its own instead of as a
+ * change to the whole prolog.
+ */
+public final class StructuralDiff {
+
+	// Larger runs of unmatched siblings are compared by position
+	private static final int MAX_ALIGNED_CHILDREN = 65536;
+
+	/**
+	 * A run of sibling subtrees which changed between both trees.
+	 */
+	public static final class Difference {
+
+		public enum Kind {
+			/** A subtree was replaced by a different subtree. */
+			CHANGED,
+			/** One or more subtrees only exist in the right tree. */
+			INSERTED,
+			/** One or more subtrees only exist in the left tree. */
+			DELETED
+		}
+
+		private final Kind kind;
+		private final List<Integer> leftPath, rightPath;
+		private final List<StructuralNode> left, right;
+
+		Difference(Kind kind, List<Integer> leftPath, List<Integer> rightPath,
+				List<StructuralNode> left, List<StructuralNode> right) {
+			this.kind = kind;
+			this.leftPath = Collections.unmodifiableList(new ArrayList<Integer>(leftPath));
+			this.rightPath = Collections.unmodifiableList(new ArrayList<Integer>(rightPath));
+			this.left = Collections.unmodifiableList(new ArrayList<StructuralNode>(left));
+			this.right = Collections.unmodifiableList(new ArrayList<StructuralNode>(right));
+		}
+
+		public Kind getKind() {
+			return kind;
+		}
+
+		/**
+		 * Returns the child indices to be followed from the root of the
+		 * left tree to reach the first subtree in {@link #getLeft()}. For
+		 * insertions, it is the position at which the new subtrees would go.
+		 */
+		public List<Integer> getLeftPath() {
+			return leftPath;
+		}
+
+		/**
+		 * Returns the child indices to be followed from the root of the
+		 * right tree to reach the first subtree in {@link #getRight()}. For
+		 * deletions, it is the position at which the removed subtrees were.
+		 */
+		public List<Integer> getRightPath() {
+			return rightPath;
+		}
+
+		/**
+		 * Returns the subtrees in the left tree, which is empty for insertions.
+		 */
+		public List<StructuralNode> getLeft() {
+			return left;
+		}
+
+		/**
+		 * Returns the subtrees in the right tree, which is empty for deletions.
+		 */
+		public List<StructuralNode> getRight() {
+			return right;
+		}
+
+		@Override
+		public String toString() {
+			return kind + " " + leftPath + " -> " + rightPath + ": " + left + " -> " + right;
+		}
+	}
+
+	private StructuralDiff() {
+		// utility class
+	}
+
+	/**
+	 * Returns <code>true</code> if both trees have the same structure.
+	 */
+	public static boolean sameStructure(StructuralNode left, StructuralNode right) {
+		return left == right || left != null && left.equals(right);
+	}
+
+	/**
+	 * Returns the smallest differing runs of subtrees between
+	 * <code>left</code> and <code>right</code>, in document order.
+	 *
+	 * @throws IllegalArgumentException
+	 *             One of the trees is <code>null</code>.
+	 */
+	public static List<Difference> diff(StructuralNode left, StructuralNode right) {
+		if (left == null || right == null) {
+			throw new IllegalArgumentException("The trees to be compared cannot be null");
+		}
+		final List<Difference> differences = new ArrayList<Difference>();
+		diff(left, right, new ArrayList<Integer>(), new ArrayList<Integer>(), differences);
+		return differences;
+	}
+
+	/**
+	 * Returns the subtree reached by following the child indices in
+	 * <code>path</code> from the parse tree <code>root</code>. Structural
+	 * trees can be navigated in the same way with
+	 * {@link StructuralNode#locate(List)}.
+	 */
+	public static ParseTree locate(ParseTree root, List<Integer> path) {
+		ParseTree current = root;
+		for (int i : path) {
+			current = current.getChild(i);
+		}
+		return current;
+	}
+
+	private static void diff(StructuralNode left, StructuralNode right,
+			List<Integer> leftPath, List<Integer> rightPath, List<Difference> differences) {
+		if (sameStructure(left, right)) {
+			return;
+		}
+
+		if (left.isTerminal() || right.isTerminal()
+				|| left.getNodeClass() != right.getNodeClass()
+				|| left.getType() != right.getType()) {
+			differences.add(new Difference(Difference.Kind.CHANGED, leftPath, rightPath,
+				Collections.singletonList(left), Collections.singletonList(right)));
+			return;
+		}
+
+		diffChildren(left, right, leftPath, rightPath, differences);
+	}
+
+	private static void diffChildren(StructuralNode left, StructuralNode right,
+			List<Integer> leftPath, List<Integer> rightPath, List<Difference> differences) {
+		align(left, right, 0, left.getChildCount(), 0, right.getChildCount(),
+			leftPath, rightPath, differences);
+	}
+
+	/*
+	 * Aligns the children in [leftFrom, leftTo) and [rightFrom, rightTo) in the
+	 * style of patience diff: after skipping the common prefix and suffix, the
+	 * children which appear exactly once on each side are used as anchors, and
+	 * the windows between consecutive anchors are aligned in the same way.
+	 * Windows without anchors or above MAX_ALIGNED_CHILDREN are paired by position.
+	 */
+	private static void align(StructuralNode left, StructuralNode right,
+			int leftFrom, int leftTo, int rightFrom, int rightTo,
+			List<Integer> leftPath, List<Integer> rightPath, List<Difference> differences) {
+		while (leftFrom < leftTo && rightFrom < rightTo
+				&& sameStructure(left.getChild(leftFrom), right.getChild(rightFrom))) {
+			++leftFrom;
+			++rightFrom;
+		}
+		while (leftTo > leftFrom && rightTo > rightFrom
+				&& sameStructure(left.getChild(leftTo - 1), right.getChild(rightTo - 1))) {
+			--leftTo;
+			--rightTo;
+		}
+
+		int[] anchors = null;
+		if (leftFrom < leftTo && rightFrom < rightTo
+				&& leftTo - leftFrom <= MAX_ALIGNED_CHILDREN
+				&& rightTo - rightFrom <= MAX_ALIGNED_CHILDREN) {
+			anchors = findAnchors(left, right, leftFrom, leftTo, rightFrom, rightTo);
+		}
+		if (anchors == null || anchors.length == 0) {
+			diffGap(left, right, leftFrom, leftTo, rightFrom, rightTo,
+				leftPath, rightPath, differences);
+			return;
+		}
+
+		for (int k = 0; k < anchors.length; k += 2) {
+			align(left, right, leftFrom, anchors[k], rightFrom, anchors[k + 1],
+				leftPath, rightPath, differences);
+			leftFrom = anchors[k] + 1;
+			rightFrom = anchors[k + 1] + 1;
+		}
+		align(left, right, leftFrom, leftTo, rightFrom, rightTo,
+			leftPath, rightPath, differences);
+	}
+
+	/*
+	 * Returns the pairs of (left index, right index) of the children which are
+	 * unique within both windows, keeping the longest run whose indices increase
+	 * on both sides. Pairs are flattened into the returned array.
+	 */
+	private static int[] findAnchors(StructuralNode left, StructuralNode right,
+			int leftFrom, int leftTo, int rightFrom, int rightTo) {
+		final Map<Long, Integer> leftUnique = uniqueByHash(left, leftFrom, leftTo);
+		final Map<Long, Integer> rightUnique = uniqueByHash(right, rightFrom, rightTo);
+
+		// Candidates, in the order of the left side
+		final int[] candLeft = new int[Math.min(leftTo - leftFrom, rightTo - rightFrom)];
+		final int[] candRight = new int[candLeft.length];
+		int nCandidates = 0;
+		for (int i = leftFrom; i < leftTo && nCandidates < candLeft.length; ++i) {
+			final Long hash = left.getChild(i).getStructuralHash();
+			final Integer li = leftUnique.get(hash), ri = rightUnique.get(hash);
+			if (li != null && li == i && ri != null && ri >= 0
+					&& sameStructure(left.getChild(i), right.getChild(ri))) {
+				candLeft[nCandidates] = i;
+				candRight[nCandidates] = ri;
+				++nCandidates;
+			}
+		}
+
+		// Longest increasing subsequence of the right indices (patience sorting)
+		final int[] tails = new int[nCandidates];
+		final int[] previous = new int[nCandidates];
+		int nTails = 0;
+		for (int c = 0; c < nCandidates; ++c) {
+			int lo = 0, hi = nTails;
+			while (lo < hi) {
+				final int mid = (lo + hi) >>> 1;
+				if (candRight[tails[mid]] < candRight[c]) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			previous[c] = lo > 0 ? tails[lo - 1] : -1;
+			tails[lo] = c;
+			if (lo == nTails) {
+				++nTails;
+			}
+		}
+
+		final int[] anchors = new int[nTails * 2];
+		for (int c = nTails > 0 ? tails[nTails - 1] : -1, k = nTails - 1; c >= 0; c = previous[c], --k) {
+			anchors[2 * k] = candLeft[c];
+			anchors[2 * k + 1] = candRight[c];
+		}
+		return anchors;
+	}
+
+	/*
+	 * Maps the structural hash of each child in [from, to) to its index, or to -1
+	 * if it appears more than once.
+	 */
+	private static Map<Long, Integer> uniqueByHash(StructuralNode node, int from, int to) {
+		final Map<Long, Integer> unique = new HashMap<Long, Integer>();
+		for (int i = from; i < to; ++i) {
+			final Long hash = node.getChild(i).getStructuralHash();
+			unique.put(hash, unique.containsKey(hash) ? -1 : i);
+		}
+		return unique;
+	}
+
+	/*
+	 * Reports the unmatched children in [leftFrom, leftTo) and [rightFrom, rightTo):
+	 * pairs are compared recursively, and the remainder is reported as a single
+	 * insertion or deletion.
+	 */
+	private static void diffGap(StructuralNode left, StructuralNode right,
+			int leftFrom, int leftTo, int rightFrom, int rightTo,
+			List<Integer> leftPath, List<Integer> rightPath, List<Difference> differences) {
+		int i = leftFrom, j = rightFrom;
+		for (; i < leftTo && j < rightTo; ++i, ++j) {
+			leftPath.add(i);
+			rightPath.add(j);
+			diff(left.getChild(i), right.getChild(j), leftPath, rightPath, differences);
+			leftPath.remove(leftPath.size() - 1);
+			rightPath.remove(rightPath.size() - 1);
+		}
+
+		if (i < leftTo || j < rightTo) {
+			final List<StructuralNode> removed = new ArrayList<StructuralNode>();
+			for (int k = i; k < leftTo; ++k) {
+				removed.add(left.getChild(k));
+			}
+			final List<StructuralNode> added = new ArrayList<StructuralNode>();
+			for (int k = j; k < rightTo; ++k) {
+				added.add(right.getChild(k));
+			}
+
+			leftPath.add(i);
+			rightPath.add(j);
+			differences.add(new Difference(
+				removed.isEmpty() ? Difference.Kind.INSERTED : Difference.Kind.DELETED,
+				leftPath, rightPath, removed, added));
+			leftPath.remove(leftPath.size() - 1);
+			rightPath.remove(rightPath.size() - 1);
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package es.uca.webservices.xquery.parser.structure;
+
+import java.util.List;
+
+/**
+ * Immutable summary of the structure of a parse subtree, with a precomputed
+ * Merkle-style hash that combines the hashes of its children. Nodes obtained
+ * through a {@link StructuralNodeTable} are canonical, so two structurally
+ * identical subtrees share the same instance and can be compared by identity.
+ *
+ * ANTLR4 contexts cannot be shared themselves, as they keep a pointer to
+ * their parent and to the positions of their tokens: these nodes only keep
+ * the kind of each node, the text of the terminals and the children.
+ */
+public final class StructuralNode {
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+	private static final StructuralNode[] NO_CHILDREN = new StructuralNode[0];
+
+	private final Class<?> nodeClass;
+	private final int type;
+	private final String text;
+	private final StructuralNode[] children;
+	private final long hash;
+
+	/**
+	 * Creates a node for a rule context.
+	 *
+	 * @param nodeClass
+	 *            Class of the context, which tells apart labeled alternatives
+	 *            of the same rule.
+	 * @param ruleIndex
+	 *            Index of the rule in the parser.
+	 * @param children
+	 *            Structural nodes for the children of the context, in order.
+	 */
+	public static StructuralNode rule(Class<?> nodeClass, int ruleIndex, StructuralNode... children) {
+		return rule(nodeClass, classSeed(nodeClass), ruleIndex, children.clone());
+	}
+
+	static StructuralNode rule(Class<?> nodeClass, long classSeed, int ruleIndex, StructuralNode[] children) {
+		return new StructuralNode(nodeClass, classSeed, ruleIndex, null, children);
+	}
+
+	/**
+	 * Creates a node for a terminal (or error) node.
+	 *
+	 * @param nodeClass
+	 *            Class of the terminal node, which tells apart error nodes.
+	 * @param tokenType
+	 *            Type of the token in the lexer.
+	 * @param text
+	 *            Text of the token.
+	 */
+	public static StructuralNode terminal(Class<?> nodeClass, int tokenType, String text) {
+		return terminal(nodeClass, classSeed(nodeClass), tokenType, text);
+	}
+
+	static StructuralNode terminal(Class<?> nodeClass, long classSeed, int tokenType, String text) {
+		if (text == null) {
+			throw new IllegalArgumentException("The text of a terminal cannot be null");
+		}
+		return new StructuralNode(nodeClass, classSeed, tokenType, text, NO_CHILDREN);
+	}
+
+	/**
+	 * Returns the hash of the name of <code>nodeClass</code>, from which the
+	 * hashes of its nodes start. {@link StructuralNodeBuilder} caches it, so
+	 * it is only computed once per class.
+	 */
+	static long classSeed(Class<?> nodeClass) {
+		if (nodeClass == null) {
+			throw new IllegalArgumentException("The node class cannot be null");
+		}
+		return mix(FNV_OFFSET_BASIS, nodeClass.getName());
+	}
+
+	private StructuralNode(Class<?> nodeClass, long classSeed, int type, String text, StructuralNode[] children) {
+		if (nodeClass == null) {
+			throw new IllegalArgumentException("The node class cannot be null");
+		}
+		this.nodeClass = nodeClass;
+		this.type = type;
+		this.text = text;
+		this.children = children;
+		this.hash = computeHash(classSeed);
+	}
+
+	public Class<?> getNodeClass() {
+		return nodeClass;
+	}
+
+	/**
+	 * Returns the rule index for rule nodes, or the token type for terminals.
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the text of the token for terminals, or <code>null</code> for rules.
+	 */
+	public String getText() {
+		return text;
+	}
+
+	public boolean isTerminal() {
+		return text != null;
+	}
+
+	public int getChildCount() {
+		return children.length;
+	}
+
+	public StructuralNode getChild(int i) {
+		return children[i];
+	}
+
+	/**
+	 * Returns the 64-bit structural hash of this subtree. Structurally
+	 * identical subtrees always have the same hash.
+	 */
+	public long getStructuralHash() {
+		return hash;
+	}
+
+	/**
+	 * Returns the descendant reached by following the child indices in
+	 * <code>path</code> from this node, such as those reported by
+	 * {@link StructuralDiff}. An empty path returns this node.
+	 *
+	 * @throws IndexOutOfBoundsException
+	 *             The path does not exist within this subtree.
+	 */
+	public StructuralNode locate(List<Integer> path) {
+		StructuralNode current = this;
+		for (int i : path) {
+			current = current.getChild(i);
+		}
+		return current;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int)(hash ^ (hash >>> 32));
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof StructuralNode)) {
+			return false;
+		}
+		final StructuralNode other = (StructuralNode)obj;
+		if (hash != other.hash || type != other.type
+				|| nodeClass != other.nodeClass
+				|| children.length != other.children.length) {
+			return false;
+		}
+		if (text == null ? other.text != null : !text.equals(other.text)) {
+			return false;
+		}
+		for (int i = 0; i < children.length; ++i) {
+			// Canonical children are compared by identity
+			if (children[i] != other.children[i] && !children[i].equals(other.children[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		if (isTerminal()) {
+			return text;
+		}
+		final StringBuilder sb = new StringBuilder("(");
+		sb.append(nodeClass.getSimpleName());
+		for (StructuralNode child : children) {
+			sb.append(' ');
+			sb.append(child);
+		}
+		sb.append(')');
+		return sb.toString();
+	}
+
+	private long computeHash(long classSeed) {
+		long h = mix(classSeed, type);
+		if (text != null) {
+			h = mix(h, text);
+		} else {
+			h = mix(h, -1);
+		}
+		h = mix(h, children.length);
+		for (StructuralNode child : children) {
+			h = mix(h, child.hash);
+		}
+		return h;
+	}
+
+	private static long mix(long h, long value) {
+		for (int i = 0; i < 8; ++i) {
+			h ^= (value >>> (i * 8)) & 0xff;
+			h *= FNV_PRIME;
+		}
+		return h;
+	}
+
+	// Hashes every character, so leaves carry the full 64 bits
+	private static long mix(long h, String s) {
+		h = mix(h, s.length());
+		for (int i = 0; i < s.length(); ++i) {
+			final char c = s.charAt(i);
+			h ^= c & 0xff;
+			h *= FNV_PRIME;
+			h ^= c >>> 8;
+			h *= FNV_PRIME;
+		}
+		return h;
+	}
+}
@@ -0,0 +1,69 @@
+package es.uca.webservices.xquery.parser.structure;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.antlr.v4.runtime.RuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+/**
+ * Computes the {@link StructuralNode} tree for an ANTLR4 parse tree,
+ * hashing each subtree bottom-up and sharing identical subtrees through
+ * a {@link StructuralNodeTable}. Using the same table for all the modules
+ * in a corpus lets them share their common subtrees (type declarations,
+ * sequence types, path expressions and so on).
+ */
+public class StructuralNodeBuilder {
+
+	private final StructuralNodeTable table;
+
+	// Hashes of the class names, which are the same for every node of a class
+	private final Map<Class<?>, Long> classSeeds = new HashMap<Class<?>, Long>();
+
+	/**
+	 * Creates a builder with its own canonicalization table.
+	 */
+	public StructuralNodeBuilder() {
+		this(new StructuralNodeTable());
+	}
+
+	/**
+	 * Creates a builder which shares subtrees through <code>table</code>.
+	 */
+	public StructuralNodeBuilder(StructuralNodeTable table) {
+		this.table = table;
+	}
+
+	public StructuralNodeTable getTable() {
+		return table;
+	}
+
+	/**
+	 * Returns the canonical structural node for <code>tree</code>.
+	 */
+	public StructuralNode build(ParseTree tree) {
+		if (tree instanceof TerminalNode) {
+			final TerminalNode terminal = (TerminalNode)tree;
+			return table.intern(StructuralNode.terminal(terminal.getClass(),
+				classSeed(terminal.getClass()), terminal.getSymbol().getType(), terminal.getText()));
+		}
+
+		final StructuralNode[] children = new StructuralNode[tree.getChildCount()];
+		for (int i = 0; i < children.length; ++i) {
+			children[i] = build(tree.getChild(i));
+		}
+		final RuleContext ctx = (RuleContext)tree.getPayload();
+		return table.intern(StructuralNode.rule(ctx.getClass(),
+			classSeed(ctx.getClass()), ctx.getRuleIndex(), children));
+	}
+
+	private synchronized long classSeed(Class<?> nodeClass) {
+		Long seed = classSeeds.get(nodeClass);
+		if (seed == null) {
+			seed = StructuralNode.classSeed(nodeClass);
+			classSeeds.put(nodeClass, seed);
+		}
+		return seed;
+	}
+}
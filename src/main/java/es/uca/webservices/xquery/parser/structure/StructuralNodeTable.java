@@ -0,0 +1,76 @@
+package es.uca.webservices.xquery.parser.structure;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Canonicalization table for {@link StructuralNode}s. Structurally identical
+ * subtrees interned through the same table are represented by a single
+ * instance, so the memory used by many similar modules grows with their
+ * distinct structure rather than with their total size.
+ *
+ * Entries are only weakly referenced: once no module uses a subtree, it
+ * can be garbage collected and will be dropped from the table. Instances
+ * of this class are safe to share among threads.
+ */
+public class StructuralNodeTable {
+
+	private final Map<StructuralNode, WeakReference<StructuralNode>> nodes
+		= new WeakHashMap<StructuralNode, WeakReference<StructuralNode>>();
+
+	/**
+	 * Returns the canonical instance for <code>node</code>, adding it to
+	 * the table if there was none yet. Subtrees must be interned bottom-up:
+	 * the children of <code>node</code> must already be canonical instances
+	 * from this table, as done by {@link StructuralNodeBuilder}.
+	 */
+	public synchronized StructuralNode intern(StructuralNode node) {
+		final StructuralNode existing = lookup(node);
+		if (existing != null) {
+			return existing;
+		}
+		assert childrenAreCanonical(node) : "Children must be interned before their parent";
+
+		nodes.put(node, new WeakReference<StructuralNode>(node));
+		return node;
+	}
+
+	/**
+	 * Returns the number of distinct subtrees currently in the table. As
+	 * entries are weakly referenced, this may go down at any time.
+	 */
+	public synchronized int size() {
+		return nodes.size();
+	}
+
+	/**
+	 * Removes all the entries in the table. Nodes interned before calling
+	 * this method will not be shared with nodes interned after it.
+	 */
+	public synchronized void clear() {
+		nodes.clear();
+	}
+
+	/**
+	 * Returns the reference through which the table keeps the canonical
+	 * instance for <code>node</code>, or <code>null</code> if it has none.
+	 */
+	synchronized WeakReference<StructuralNode> getReference(StructuralNode node) {
+		return nodes.get(node);
+	}
+
+	private boolean childrenAreCanonical(StructuralNode node) {
+		for (int i = 0; i < node.getChildCount(); ++i) {
+			if (lookup(node.getChild(i)) != node.getChild(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private StructuralNode lookup(StructuralNode node) {
+		final WeakReference<StructuralNode> ref = nodes.get(node);
+		return ref != null ? ref.get() : null;
+	}
+}
@@ -10,6 +10,8 @@ import org.antlr.v4.runtime.tree.ParseTreeWalker;
 import es.uca.webservices.xquery.parser.XQueryLexer;
 import es.uca.webservices.xquery.parser.XQueryParser;
 import es.uca.webservices.xquery.parser.XQueryParser.ModuleContext;
+import es.uca.webservices.xquery.parser.structure.StructuralNode;
+import es.uca.webservices.xquery.parser.structure.StructuralNodeBuilder;
 import es.uca.webservices.xquery.parser.validation.ExtraGrammaticalValidationListener;
 
 /**
@@ -54,4 +56,20 @@ public class XQueryValidatingParser {
 		return tree;
 	}
 
+	/**
+	 * Parses and validates the XQuery module provided through
+	 * <code>charStream</code>, and returns only its structural tree as
+	 * computed by <code>builder</code>. The ANTLR4 parse tree is not kept,
+	 * so modules built through the same {@link StructuralNodeBuilder} only
+	 * take up memory for the subtrees they do not share.
+	 *
+	 * @throws XQueryParsingException
+	 *             There were lexical, syntactical or extra-syntactical errors
+	 *             in the XQuery module. These can be examined using
+	 *             {@link XQueryParsingException#getErrors()}.
+	 */
+	public StructuralNode parse(final ANTLRInputStream charStream, final StructuralNodeBuilder builder) throws XQueryParsingException {
+		return builder.build(parse(charStream));
+	}
+
 }
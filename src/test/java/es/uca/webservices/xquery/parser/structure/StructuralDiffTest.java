@@ -0,0 +1,132 @@
+package es.uca.webservices.xquery.parser.structure;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.junit.Test;
+
+import es.uca.webservices.xquery.parser.XQueryParser.ModuleContext;
+import es.uca.webservices.xquery.parser.XQueryParser.VarDeclContext;
+import es.uca.webservices.xquery.parser.structure.StructuralDiff.Difference;
+import es.uca.webservices.xquery.parser.util.XQueryValidatingParser;
+
+/**
+ * Unit tests for the {@link StructuralDiff} class.
+ */
+public class StructuralDiffTest {
+	private final XQueryValidatingParser parser = new XQueryValidatingParser();
+	private final StructuralNodeBuilder builder = new StructuralNodeBuilder();
+
+	@Test
+	public void identicalModulesHaveNoDifferences() throws Exception {
+		final String query = "declare variable $x as xs:integer* := (1, 2); $x[. > 1]";
+		assertTrue(StructuralDiff.diff(build(query), build(query)).isEmpty());
+	}
+
+	@Test
+	public void changedTerminalIsReported() throws Exception {
+		final StructuralNode first = build("declare variable $x as xs:integer* := 1; $x");
+		final StructuralNode second = build("declare variable $x as xs:integer* := 2; $x");
+		assertFalse(first.getStructuralHash() == second.getStructuralHash());
+
+		final List<Difference> differences = StructuralDiff.diff(first, second);
+		assertEquals(1, differences.size());
+		final Difference difference = differences.get(0);
+		assertEquals(Difference.Kind.CHANGED, difference.getKind());
+		assertEquals("1", difference.getLeft().get(0).toString());
+		assertEquals("2", difference.getRight().get(0).toString());
+		assertSame(difference.getLeft().get(0), first.locate(difference.getLeftPath()));
+		assertSame(difference.getRight().get(0), second.locate(difference.getRightPath()));
+	}
+
+	@Test
+	public void insertedDeclarationIsReportedAlone() throws Exception {
+		final StructuralNode first = build(
+			"declare variable $a := 1; declare variable $b := 2; $a + $b");
+		final ModuleContext secondTree = parse(
+			"declare variable $a := 1; declare variable $c := 3; declare variable $b := 2; $a + $b");
+		final StructuralNode second = builder.build(secondTree);
+
+		final List<Difference> differences = StructuralDiff.diff(first, second);
+		assertEquals(1, differences.size());
+		final Difference difference = differences.get(0);
+		assertEquals(Difference.Kind.INSERTED, difference.getKind());
+		assertTrue(difference.getLeft().isEmpty());
+		assertEquals(2, difference.getRight().size());
+		assertEquals(Arrays.asList(0, 0, 2), difference.getRightPath());
+
+		final ParseTree inserted = StructuralDiff.locate(secondTree, difference.getRightPath());
+		assertTrue(inserted instanceof VarDeclContext);
+		assertEquals("declarevariable$c:=3", inserted.getText());
+		assertEquals(";", difference.getRight().get(1).getText());
+
+		final List<Difference> reverse = StructuralDiff.diff(second, first);
+		assertEquals(1, reverse.size());
+		assertEquals(Difference.Kind.DELETED, reverse.get(0).getKind());
+		assertEquals(Arrays.asList(0, 0, 2), reverse.get(0).getLeftPath());
+	}
+
+	@Test
+	public void largeSiblingListChangedAtBothEnds() throws Exception {
+		final int nDecls = 5000;
+		final StructuralNode first = build(prologWithDeclarations(nDecls, 0));
+		final StructuralNode second = build(prologWithDeclarations(nDecls, 1));
+
+		// Each declaration is followed by ';' in the prolog
+		final List<Difference> differences = StructuralDiff.diff(first, second);
+		assertEquals(2, differences.size());
+		assertEquals(Arrays.asList(0, 0, 0), differences.get(0).getLeftPath().subList(0, 3));
+		assertEquals(Arrays.asList(0, 0, 2 * (nDecls - 1)), differences.get(1).getLeftPath().subList(0, 3));
+		for (Difference difference : differences) {
+			assertEquals(Difference.Kind.CHANGED, difference.getKind());
+		}
+	}
+
+	@Test
+	public void differencesCanBeLocated() throws Exception {
+		final ModuleContext firstTree = parse("for $a in (1, 2) return $a + 1");
+		final ModuleContext secondTree = parse("for $a in (1, 2) return $a - 1");
+		final List<Difference> differences
+			= StructuralDiff.diff(builder.build(firstTree), builder.build(secondTree));
+
+		assertEquals(1, differences.size());
+		final ParseTree first = StructuralDiff.locate(firstTree, differences.get(0).getLeftPath());
+		final ParseTree second = StructuralDiff.locate(secondTree, differences.get(0).getRightPath());
+		assertEquals("+", first.getText());
+		assertEquals("-", second.getText());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void diffRejectsNull() throws Exception {
+		StructuralDiff.diff(build("1"), null);
+	}
+
+	/*
+	 * Returns a module declaring $v0 to $v(n-1), where the first and last
+	 * declarations have <code>delta</code> added to their values.
+	 */
+	private static String prologWithDeclarations(int n, int delta) {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < n; ++i) {
+			final int value = i == 0 || i == n - 1 ? i + delta : i;
+			sb.append("declare variable $v").append(i).append(" := ").append(value).append(";\n");
+		}
+		sb.append("$v0");
+		return sb.toString();
+	}
+
+	private ModuleContext parse(String query) throws Exception {
+		return parser.parse(new ANTLRInputStream(query));
+	}
+
+	private StructuralNode build(String query) throws Exception {
+		return parser.parse(new ANTLRInputStream(query), builder);
+	}
+}
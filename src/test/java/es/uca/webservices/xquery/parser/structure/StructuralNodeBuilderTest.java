@@ -0,0 +1,80 @@
+package es.uca.webservices.xquery.parser.structure;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.junit.Test;
+
+import es.uca.webservices.xquery.parser.XQueryParser.TypeDeclarationContext;
+import es.uca.webservices.xquery.parser.util.XQueryValidatingParser;
+
+/**
+ * Unit tests for the {@link StructuralNodeBuilder} class.
+ */
+public class StructuralNodeBuilderTest {
+	private final XQueryValidatingParser parser = new XQueryValidatingParser();
+	private final StructuralNodeBuilder builder = new StructuralNodeBuilder();
+
+	@Test
+	public void identicalModulesAreShared() throws Exception {
+		final String query = "declare variable $x as xs:integer* := (1, 2); $x[. > 1]";
+		final StructuralNode first = build(query);
+		final int size = builder.getTable().size();
+		final StructuralNode second = build(query);
+
+		assertSame(first, second);
+		assertEquals(size, builder.getTable().size());
+	}
+
+	@Test
+	public void identicalSubtreesAreShared() throws Exception {
+		final StructuralNode first = build("declare variable $x as xs:integer* := 1; $x");
+		final StructuralNode second = build("declare variable $y as xs:integer* := 2; $y");
+		assertNotSame(first, second);
+		assertFalse(StructuralDiff.sameStructure(first, second));
+
+		final StructuralNode firstType = find(first, TypeDeclarationContext.class);
+		assertNotNull(firstType);
+		assertSame(firstType, find(second, TypeDeclarationContext.class));
+	}
+
+	@Test
+	public void differentTablesAreNotShared() throws Exception {
+		final String query = "<a>{ 1 }</a>";
+		final StructuralNode first = build(query);
+		final StructuralNode second = parser.parse(new ANTLRInputStream(query), new StructuralNodeBuilder());
+
+		assertNotSame(first, second);
+		assertEquals(first, second);
+		assertEquals(first.getStructuralHash(), second.getStructuralHash());
+	}
+
+	@Test
+	public void stringHashCollisionsDoNotCollideStructurally() throws Exception {
+		// "Aa" and "BB" have the same String.hashCode()
+		final StructuralNode first = build("declare variable $Aa := 1; $Aa");
+		final StructuralNode second = build("declare variable $BB := 1; $BB");
+		assertFalse(first.getStructuralHash() == second.getStructuralHash());
+	}
+
+	private StructuralNode build(String query) throws Exception {
+		return parser.parse(new ANTLRInputStream(query), builder);
+	}
+
+	private static StructuralNode find(StructuralNode node, Class<?> nodeClass) {
+		if (node.getNodeClass() == nodeClass) {
+			return node;
+		}
+		for (int i = 0; i < node.getChildCount(); ++i) {
+			final StructuralNode found = find(node.getChild(i), nodeClass);
+			if (found != null) {
+				return found;
+			}
+		}
+		return null;
+	}
+}
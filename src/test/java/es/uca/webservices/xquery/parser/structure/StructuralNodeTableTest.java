@@ -0,0 +1,54 @@
+package es.uca.webservices.xquery.parser.structure;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.lang.ref.WeakReference;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link StructuralNodeTable} class.
+ */
+public class StructuralNodeTableTest {
+	private final StructuralNodeTable table = new StructuralNodeTable();
+
+	@Test
+	public void equalNodesAreInternedOnce() {
+		final StructuralNode first = table.intern(StructuralNode.rule(Object.class, 1, leaf("a"), leaf("b")));
+		final StructuralNode second = table.intern(StructuralNode.rule(Object.class, 1, leaf("a"), leaf("b")));
+
+		assertSame(first, second);
+		assertSame(first.getChild(0), second.getChild(0));
+		assertEquals(3, table.size());
+	}
+
+	@Test
+	public void nodesAreOnlyWeaklyReferenced() {
+		final StructuralNode node = table.intern(leaf("a"));
+
+		// Clearing the reference is what the garbage collector would do
+		// once the node is no longer used anywhere else
+		final WeakReference<StructuralNode> ref = table.getReference(node);
+		assertNotNull(ref);
+		assertSame(node, ref.get());
+		ref.clear();
+
+		final StructuralNode replacement = StructuralNode.terminal(Object.class, 1, "a");
+		assertSame(replacement, table.intern(replacement));
+		assertNotSame(node, replacement);
+	}
+
+	@Test
+	public void clearDropsAllNodes() {
+		table.intern(leaf("a"));
+		table.clear();
+		assertEquals(0, table.size());
+	}
+
+	private StructuralNode leaf(String text) {
+		return table.intern(StructuralNode.terminal(Object.class, 1, text));
+	}
+}